@@ -0,0 +1,223 @@
+package jconnect.bench;
+
+import jconnect.network.*;
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+// Runs many NetworkManagers in one JVM on loopback and drives message floods, file transfers
+// and connect/disconnect churn between them, printing one report line per interval.
+// Usage: java -cp dist/JConnect.jar jconnect.bench.SoakHarness peers=200 seconds=120 degree=4
+//        msgRate=20 fileEvery=10 files=1 fileKb=512 churnRate=5 interval=5 unix=false
+public class SoakHarness {
+    private static final String PROBE = "soak|";
+
+    private final int peers;
+    private final int seconds;
+    private final int degree;
+    private final int msgRate;
+    private final int fileEvery;
+    private final int files;
+    private final int fileKb;
+    private final int churnRate;
+    private final int interval;
+    private final boolean unix;
+
+    private final List<NetworkManager> nodes = new ArrayList<>();
+    private final Random random = new Random(42);
+    // Fraction of a message per peer carried into the next flood tick
+    private double msgCredit = 0;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong fileBytes = new AtomicLong();
+    private final AtomicLong filesDone = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final LatencyWindow latencies = new LatencyWindow();
+
+    private SoakHarness(Map<String, String> args) {
+        peers = Integer.parseInt(args.getOrDefault("peers", "200"));
+        seconds = Integer.parseInt(args.getOrDefault("seconds", "120"));
+        degree = Integer.parseInt(args.getOrDefault("degree", "4"));
+        msgRate = Integer.parseInt(args.getOrDefault("msgRate", "20"));
+        fileEvery = Integer.parseInt(args.getOrDefault("fileEvery", "10"));
+        files = Integer.parseInt(args.getOrDefault("files", "1"));
+        fileKb = Integer.parseInt(args.getOrDefault("fileKb", "512"));
+        churnRate = Integer.parseInt(args.getOrDefault("churnRate", "5"));
+        interval = Integer.parseInt(args.getOrDefault("interval", "5"));
+        unix = Boolean.parseBoolean(args.getOrDefault("unix", "false"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> parsed = new HashMap<>();
+        for (String arg : args) {
+            String[] kv = arg.split("=", 2);
+            if (kv.length == 2) parsed.put(kv[0], kv[1]);
+        }
+        new SoakHarness(parsed).run();
+    }
+
+    private void run() throws Exception {
+        Path work = Files.createTempDirectory("jconnect-soak");
+        File payload = work.resolve("payload.bin").toFile();
+        try (RandomAccessFile f = new RandomAccessFile(payload, "rw")) { f.setLength(fileKb * 1024L); }
+
+        long setupStart = System.nanoTime();
+        for (int i = 0; i < peers; i++) {
+            NetworkConfig config = new NetworkConfig()
+                    .setTcpPort(0)
+                    .setBindAddress("127.0.0.1")
+                    .setDiscoveryEnabled(false)
+                    .setLocalSocketsEnabled(unix)
+                    .setSocketDir(work.resolve("sockets").toString())
+                    .setDownloadDir(work.resolve("downloads-" + i).toFile());
+            NetworkManager node = new NetworkManager(new Probe(), config);
+            node.start();
+            nodes.add(node);
+        }
+        // Stand-in for discovery: every node learns about its ring neighbours
+        for (int i = 0; i < peers; i++) {
+            for (int d = 1; d <= degree; d++) {
+                NetworkManager peer = nodes.get((i + d) % peers);
+                nodes.get(i).getRegistry().updateDevice(peer.getNodeId(), "soak-" + ((i + d) % peers),
+                        "127.0.0.1", peer.getPort(), peer.getLocalSocketPath());
+            }
+        }
+        Set<String> edges = new HashSet<>();
+        for (int i = 0; i < peers; i++) {
+            for (int d = 1; d <= degree; d++) {
+                int j = (i + d) % peers;
+                if (j != i) edges.add(Math.min(i, j) + "-" + Math.max(i, j));
+                nodes.get(i).connectTo(neighbour(i, d).getNodeId());
+            }
+        }
+        // Dials are async; flooding before they land would count setup as message loss
+        long setupDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (connectionCount() < 2 * edges.size() && System.nanoTime() < setupDeadline) Thread.sleep(50);
+        System.out.printf("Started %d peers (degree %d, %s) in %d ms%n", peers, degree,
+                unix ? "unix sockets" : "tcp", (System.nanoTime() - setupStart) / 1_000_000);
+        System.out.println("  t(s)  conns   msg/s  p50(ms)  p95(ms)  p99(ms)  max(ms)  files  file MB/s  drops  threads  heap MB");
+
+        ScheduledExecutorService drivers = Executors.newScheduledThreadPool(4);
+        if (msgRate > 0) drivers.scheduleAtFixedRate(this::floodTick, 0, 100, TimeUnit.MILLISECONDS);
+        if (fileEvery > 0) drivers.scheduleAtFixedRate(() -> fileTick(payload), fileEvery, fileEvery, TimeUnit.SECONDS);
+        if (churnRate > 0) drivers.scheduleAtFixedRate(this::churnTick, 1, 1, TimeUnit.SECONDS);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long start = System.nanoTime();
+        long lastDelivered = 0, lastFileBytes = 0;
+        for (int t = interval; t <= seconds; t += interval) {
+            Thread.sleep(interval * 1000L);
+            long[] window = latencies.drain();
+            long d = delivered.get(), fb = fileBytes.get();
+            int conns = connectionCount();
+            System.out.printf("%6d %6d %7.0f %8.2f %8.2f %8.2f %8.2f %6d %10.1f %6d %8d %8d%n",
+                    (System.nanoTime() - start) / 1_000_000_000L, conns,
+                    (d - lastDelivered) / (double) interval,
+                    pct(window, 50), pct(window, 95), pct(window, 99), pct(window, 100),
+                    filesDone.get(), (fb - lastFileBytes) / 1048576.0 / interval, disconnects.get(),
+                    threads.getThreadCount(), memory.getHeapMemoryUsage().getUsed() / 1048576);
+            lastDelivered = d;
+            lastFileBytes = fb;
+        }
+
+        drivers.shutdownNow();
+        System.out.printf("Sent %d, delivered %d, peak threads %d%n", sent.get(), delivered.get(), threads.getPeakThreadCount());
+        for (NetworkManager node : nodes) node.stop();
+        System.exit(0);
+    }
+
+    private int connectionCount() {
+        int conns = 0;
+        for (NetworkManager node : nodes) conns += node.getConnectionCount();
+        return conns;
+    }
+
+    private NetworkManager neighbour(int i, int d) {
+        return nodes.get((i + d) % peers);
+    }
+
+    // msgRate messages per peer per second, spread over 100 ms ticks. Rates that don't divide
+    // by 10 carry the remainder forward, so msgRate=3 sends on 3 of every 10 ticks.
+    private void floodTick() {
+        msgCredit += msgRate / 10.0;
+        int perTick = (int) msgCredit;
+        msgCredit -= perTick;
+        for (int i = 0; i < peers; i++) {
+            for (int m = 0; m < perTick; m++) {
+                NetworkManager target = neighbour(i, 1 + random.nextInt(degree));
+                nodes.get(i).sendMessageTo(target.getNodeId(), PROBE + System.nanoTime());
+                sent.incrementAndGet();
+            }
+        }
+    }
+
+    // files transfers start together each tick; sendFileTo returns immediately, so they overlap
+    private void fileTick(File payload) {
+        for (int f = 0; f < files; f++) {
+            int i = random.nextInt(peers);
+            nodes.get(i).sendFileTo(neighbour(i, 1 + random.nextInt(degree)).getNodeId(), payload);
+        }
+    }
+
+    private void churnTick() {
+        for (int c = 0; c < churnRate; c++) {
+            int i = random.nextInt(peers);
+            String peerId = neighbour(i, 1 + random.nextInt(degree)).getNodeId();
+            nodes.get(i).disconnectFrom(peerId);
+            nodes.get(i).connectTo(peerId);
+        }
+    }
+
+    private static double pct(long[] sorted, int p) {
+        if (sorted.length == 0) return 0;
+        int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, idx)] / 1e6;
+    }
+
+    private class Probe implements ConnectionObserver {
+        @Override
+        public void onMessage(String deviceId, String message) {
+            if (message.startsWith(PROBE)) {
+                latencies.record(System.nanoTime() - Long.parseLong(message.substring(PROBE.length())));
+                delivered.incrementAndGet();
+            } else if (message.startsWith("File Saved: ")) {
+                File saved = new File(message.substring("File Saved: ".length()));
+                fileBytes.addAndGet(saved.length());
+                filesDone.incrementAndGet();
+                saved.delete();
+            }
+        }
+
+        @Override
+        public void onStatusChange(String deviceId, boolean isOnline) {
+            if (!isOnline) disconnects.incrementAndGet();
+        }
+
+        @Override
+        public void onFileProgress(String deviceId, String fileName, int progress) {}
+    }
+
+    // Latencies (ns) recorded since the last drain, returned sorted
+    private static class LatencyWindow {
+        private long[] samples = new long[1024];
+        private int count = 0;
+
+        synchronized void record(long nanos) {
+            if (count == samples.length) samples = Arrays.copyOf(samples, count * 2);
+            samples[count++] = nanos;
+        }
+
+        synchronized long[] drain() {
+            long[] out = Arrays.copyOf(samples, count);
+            count = 0;
+            Arrays.sort(out);
+            return out;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package jconnect.bench;
+
+import jconnect.network.ChannelStreams;
+import jconnect.network.SecureChannel;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Loopback comparison of plaintext vs SecureChannel over the same stream stack DeviceConnection
+// uses (SocketChannel -> ChannelStreams -> 64 KB buffers -> optional record streams).
+// Besides wall-clock MB/s it reports CPU ms per MB on each side: on a single core the sender
+// and receiver share the CPU, so the CPU cost is the number that carries over to real links.
+// Usage: java -cp dist/JConnect.jar jconnect.bench.TransportBenchmark [megabytes] [handshakes] [chunkKb]
+public class TransportBenchmark {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private static class Run {
+        double mbPerSec;
+        double senderCpuMsPerMb;
+        double receiverCpuMsPerMb;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int handshakes = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int chunk = (args.length > 2 ? Integer.parseInt(args[2]) : 64) * 1024;
+        byte[] psk = SecureChannel.deriveKey("benchmark");
+
+        System.out.printf("%d CPU(s), %d MB per run, %d KB writes%n",
+                Runtime.getRuntime().availableProcessors(), megabytes, chunk / 1024);
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+            // Warm-up so both runs measure compiled code with intrinsics in place
+            throughput(server, null, Math.max(64, megabytes / 4), chunk);
+            throughput(server, psk, Math.max(64, megabytes / 4), chunk);
+
+            Run plain = throughput(server, null, megabytes, chunk);
+            Run secure = throughput(server, psk, megabytes, chunk);
+            System.out.println("            MB/s   send CPU ms/MB   recv CPU ms/MB");
+            print("plaintext", plain);
+            print("AES-GCM", secure);
+            System.out.printf("Encryption adds %.2f ms CPU per MB sent and %.2f ms per MB received.%n",
+                    secure.senderCpuMsPerMb - plain.senderCpuMsPerMb,
+                    secure.receiverCpuMsPerMb - plain.receiverCpuMsPerMb);
+            // With a core per side, the busier side bounds the rate
+            System.out.printf("CPU-bound ceiling with one core per side: plaintext %.0f MB/s, AES-GCM %.0f MB/s%n",
+                    1000 / Math.max(plain.senderCpuMsPerMb, plain.receiverCpuMsPerMb),
+                    1000 / Math.max(secure.senderCpuMsPerMb, secure.receiverCpuMsPerMb));
+
+            handshake(server, psk, handshakes / 2, false);
+            handshake(server, psk, handshakes / 2, true);
+            double[] full = handshake(server, psk, handshakes, false);
+            double[] resumed = handshake(server, psk, handshakes, true);
+            System.out.printf("full handshake    : median %6.3f ms wall, %6.3f ms client CPU%n", full[0], full[1]);
+            System.out.printf("resumed handshake : median %6.3f ms wall, %6.3f ms client CPU%n", resumed[0], resumed[1]);
+        }
+    }
+
+    private static void print(String name, Run r) {
+        System.out.printf("%-9s %8.1f %16.2f %16.2f%n", name, r.mbPerSec, r.senderCpuMsPerMb, r.receiverCpuMsPerMb);
+    }
+
+    private static Run throughput(ServerSocketChannel server, byte[] psk, int megabytes, int chunk) throws Exception {
+        long total = (long) megabytes * 1024 * 1024;
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<Long> receiverCpu = pool.submit(() -> {
+            try (SocketChannel s = server.accept()) {
+                InputStream in = new BufferedInputStream(ChannelStreams.in(s), ChannelStreams.BUFFER_SIZE);
+                if (psk != null) {
+                    in = SecureChannel.accept(in, new BufferedOutputStream(ChannelStreams.out(s), ChannelStreams.BUFFER_SIZE), psk).getInputStream();
+                }
+                long cpuStart = threads.getCurrentThreadCpuTime();
+                byte[] buf = new byte[chunk];
+                long n = 0;
+                int r;
+                while (n < total && (r = in.read(buf)) != -1) n += r;
+                if (n != total) throw new IllegalStateException("Short read");
+                return threads.getCurrentThreadCpuTime() - cpuStart;
+            }
+        });
+
+        try (SocketChannel s = SocketChannel.open(server.getLocalAddress())) {
+            s.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            InputStream rawIn = new BufferedInputStream(ChannelStreams.in(s), ChannelStreams.BUFFER_SIZE);
+            OutputStream out = new BufferedOutputStream(ChannelStreams.out(s), ChannelStreams.BUFFER_SIZE);
+            if (psk != null) out = SecureChannel.connect(rawIn, out, "throughput", psk).getOutputStream();
+            DataOutputStream dout = new DataOutputStream(out);
+            byte[] data = new byte[chunk];
+            new Random(1).nextBytes(data);
+
+            long cpuStart = threads.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+            for (long sent = 0; sent < total; sent += chunk) dout.write(data, 0, (int) Math.min(chunk, total - sent));
+            dout.flush();
+            long senderCpu = threads.getCurrentThreadCpuTime() - cpuStart;
+            long recvCpu = receiverCpu.get();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            Run run = new Run();
+            run.mbPerSec = megabytes / seconds;
+            run.senderCpuMsPerMb = senderCpu / 1e6 / megabytes;
+            run.receiverCpuMsPerMb = recvCpu / 1e6 / megabytes;
+            return run;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Median wall ms per connect+handshake and median client-side CPU ms. Resumed runs reuse
+    // the ticket from the previous connection; full runs use a fresh peer key each time.
+    private static double[] handshake(ServerSocketChannel server, byte[] psk, int count, boolean resume) throws Exception {
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<?> acceptor = pool.submit(() -> {
+            for (int i = 0; i < count + 1; i++) {
+                try (SocketChannel s = server.accept()) {
+                    s.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    SecureChannel.accept(new BufferedInputStream(ChannelStreams.in(s), ChannelStreams.BUFFER_SIZE),
+                            new BufferedOutputStream(ChannelStreams.out(s), ChannelStreams.BUFFER_SIZE), psk);
+                }
+            }
+            return null;
+        });
+
+        String resumeKey = "resume-" + UUID.randomUUID();
+        double[] wall = new double[count];
+        double[] cpu = new double[count];
+        // The extra first iteration obtains the ticket that resumed runs reuse
+        for (int i = -1; i < count; i++) {
+            long cpuStart = threads.getCurrentThreadCpuTime();
+            long start = System.nanoTime();
+            try (SocketChannel s = SocketChannel.open(server.getLocalAddress())) {
+                s.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                String peer = resume ? resumeKey : "full-" + UUID.randomUUID();
+                SecureChannel sc = SecureChannel.connect(new BufferedInputStream(ChannelStreams.in(s), ChannelStreams.BUFFER_SIZE),
+                        new BufferedOutputStream(ChannelStreams.out(s), ChannelStreams.BUFFER_SIZE), peer, psk);
+                if (i >= 0 && sc.isResumed() != resume) throw new IllegalStateException("Unexpected handshake type");
+            }
+            if (i >= 0) {
+                wall[i] = (System.nanoTime() - start) / 1e6;
+                cpu[i] = (threads.getCurrentThreadCpuTime() - cpuStart) / 1e6;
+            }
+        }
+        acceptor.get();
+        pool.shutdown();
+        Arrays.sort(wall);
+        Arrays.sort(cpu);
+        return new double[] { wall[count / 2], cpu[count / 2] };
+    }
+}
@@ -0,0 +1,52 @@
+package jconnect.network;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+// Stream views over a blocking SocketChannel. Channels.newInputStream/newOutputStream
+// serialize on the channel's blocking lock, so a parked reader would stall every writer;
+// these call read/write directly, which SocketChannel allows concurrently.
+public class ChannelStreams {
+    // Buffer size DeviceConnection wraps these streams in
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    public static InputStream in(SocketChannel channel) {
+        return new InputStream() {
+            private final byte[] single = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                int n = read(single, 0, 1);
+                return n == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                return channel.read(ByteBuffer.wrap(b, off, len));
+            }
+
+            @Override
+            public void close() throws IOException { channel.close(); }
+        };
+    }
+
+    public static OutputStream out(SocketChannel channel) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+                while (buf.hasRemaining()) channel.write(buf);
+            }
+
+            @Override
+            public void close() throws IOException { channel.close(); }
+        };
+    }
+}
@@ -1,7 +1,7 @@
 package jconnect.network;
 
 public interface ConnectionObserver {
-    void onMessage(String deviceIp, String message);
-    void onStatusChange(String deviceIp, boolean isOnline);
-    void onFileProgress(String deviceIp, String fileName, int progress);
+    void onMessage(String deviceId, String message);
+    void onStatusChange(String deviceId, boolean isOnline);
+    void onFileProgress(String deviceId, String fileName, int progress);
 }
\ No newline at end of file
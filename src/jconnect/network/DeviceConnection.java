@@ -1,91 +1,150 @@
 package jconnect.network;
 
 import java.io.*;
-import java.net.*;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class DeviceConnection {
     private static final byte CMD_HEARTBEAT = 0;
     private static final byte CMD_MSG = 1;
     private static final byte CMD_FILE = 2;
     private static final byte CMD_ACK = 3; 
+    private static final byte CMD_PONG = 4;
+    private static final String HELLO = "JCONNECT-HELLO/2";
+    private static final int HANDSHAKE_TIMEOUT_S = 5;
+    private static final int HEARTBEAT_WRITE_TIMEOUT_S = 5;
 
-    private String remoteIp;
-    private Socket socket;
+    private final SocketChannel channel;
+    private final TransportTuner tuner;
+    private final String localId;
+    private String remoteId;
+    private final boolean initiator;
     private DataOutputStream out;
     private DataInputStream in;
     
     private final ConnectionObserver observer;
+    private final ScheduledExecutorService heartbeats;
+    private final ScheduledExecutorService deadlines;
+    private final File downloadDir;
+    private final byte[] psk;
+    private ScheduledFuture<?> heartbeat;
     private volatile boolean isOnline = false;
+    private volatile boolean closed = false;
     private volatile long lastSeen = 0; 
     
-    private final Object writeLock = new Object(); 
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final ReentrantLock writeLock = new ReentrantLock();
 
-    public DeviceConnection(String remoteIp, int port, ConnectionObserver observer) {
-        this.remoteIp = remoteIp;
+    // expectedRemoteId is the peer we dialed, or null for an accepted channel; psk is null for plaintext
+    public DeviceConnection(SocketChannel channel, String expectedRemoteId, String localId, byte[] psk,
+                            ConnectionObserver observer, ScheduledExecutorService heartbeats,
+                            ScheduledExecutorService deadlines, File downloadDir) {
+        this.channel = channel;
+        this.tuner = new TransportTuner(channel);
+        this.remoteId = expectedRemoteId;
+        this.initiator = expectedRemoteId != null;
+        this.localId = localId;
         this.observer = observer;
-        // Immediate attempt to connect
-        attemptReconnect();
-        startManager();
+        this.heartbeats = heartbeats;
+        this.deadlines = deadlines;
+        this.downloadDir = downloadDir;
+        this.psk = psk;
     }
 
-    public DeviceConnection(Socket existingSocket, ConnectionObserver observer) {
-        this.socket = existingSocket;
-        this.remoteIp = existingSocket.getInetAddress().getHostAddress();
-        this.observer = observer;
+    public String getRemoteId() { return remoteId; }
+    public String getDiagnostics() { return tuner.describe(); }
+    public boolean isInitiator() { return initiator; }
+
+    public boolean isConnected() {
+        return isOnline && channel.isOpen();
+    }
+
+    // Open and not yet shut down, even if activate() hasn't run yet
+    public boolean isAlive() {
+        return !closed && channel.isOpen();
+    }
+
+    // Sets up (optionally encrypted) streams and exchanges node ids. Starts no threads,
+    // so a connection that loses registration can be dropped with shutdown() alone.
+    // Channel reads ignore SO_TIMEOUT, so a silent peer is cut off by closing the channel.
+    public void handshake() throws IOException {
+        ScheduledFuture<?> deadline = deadlines.schedule(this::closeChannel, HANDSHAKE_TIMEOUT_S, TimeUnit.SECONDS);
         try {
-            setupStreams();
-        } catch (IOException e) {
-            handleDisconnect();
+            exchangeHello();
+        } finally {
+            deadline.cancel(false);
         }
-        startManager();
-    }
-    
-    public boolean isConnected() {
-        return isOnline && socket != null && !socket.isClosed();
+        if (!channel.isOpen()) throw new IOException("Handshake timed out");
     }
 
-    private void setupStreams() throws IOException {
-        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
-        
-        isOnline = true;
-        lastSeen = System.currentTimeMillis();
-        observer.onStatusChange(remoteIp, true);
-        
-        new Thread(this::listen).start();
+    private void exchangeHello() throws IOException {
+        InputStream rawIn = new BufferedInputStream(ChannelStreams.in(channel), ChannelStreams.BUFFER_SIZE);
+        OutputStream rawOut = new BufferedOutputStream(ChannelStreams.out(channel), ChannelStreams.BUFFER_SIZE);
+
+        if (psk != null) {
+            // Record streams do their own 64 KB buffering, so no extra buffer on top
+            SecureChannel secure = initiator
+                    ? SecureChannel.connect(rawIn, rawOut, remoteId, psk)
+                    : SecureChannel.accept(rawIn, rawOut, psk);
+            out = new DataOutputStream(secure.getOutputStream());
+            in = new DataInputStream(secure.getInputStream());
+        } else {
+            out = new DataOutputStream(rawOut);
+            in = new DataInputStream(rawIn);
+        }
+
+        out.writeUTF(HELLO);
+        out.writeUTF(localId);
+        out.flush();
+        if (!HELLO.equals(in.readUTF())) throw new IOException("Not a JConnect peer");
+        String peerId = in.readUTF();
+        if (peerId.equals(localId)) throw new IOException("Connected to ourselves");
+        if (remoteId != null && !remoteId.equals(peerId)) throw new IOException("Expected " + remoteId + " but reached " + peerId);
+        remoteId = peerId;
     }
 
-    private void startManager() {
-        scheduler.scheduleAtFixedRate(() -> {
-            if (isOnline) {
-                try {
-                    synchronized (writeLock) {
-                        out.writeByte(CMD_HEARTBEAT);
-                        out.flush();
-                    }
-                } catch (IOException e) { handleDisconnect(); }
-            }
-        }, 0, 2, TimeUnit.SECONDS);
+    // Called once this connection has won registration. Synchronized with shutdown() so a
+    // connection replaced in between never starts a listener or heartbeat.
+    public void activate() {
+        synchronized (this) {
+            if (closed) return;
+            isOnline = true;
+            lastSeen = System.currentTimeMillis();
+            heartbeat = heartbeats.scheduleAtFixedRate(this::sendHeartbeat, 0, 2, TimeUnit.SECONDS);
+        }
+        observer.onStatusChange(remoteId, true);
+        new Thread(this::listen, "conn-" + remoteId).start();
     }
 
-    private void attemptReconnect() {
-        if (socket != null && !socket.isClosed() && isOnline) return;
+    private void sendHeartbeat() {
+        if (!isOnline) return;
+        // Runs on the shared scheduler: never wait behind a file transfer, which proves liveness anyway
+        if (!writeLock.tryLock()) return;
+        // Nor on a peer that stopped reading: a flush into its full send buffer would otherwise
+        // park the shared thread and stall every other connection's heartbeat
+        ScheduledFuture<?> deadline = deadlines.schedule(this::closeChannel, HEARTBEAT_WRITE_TIMEOUT_S, TimeUnit.SECONDS);
         try {
-            socket = new Socket();
-            socket.connect(new InetSocketAddress(remoteIp, 5000), 2000); // 2s timeout
-            setupStreams();
-        } catch (IOException e) { 
-            // Silent fail on connect attempt, UI handles "Offline" status
+            out.writeByte(CMD_HEARTBEAT);
+            out.writeLong(System.nanoTime()); // echoed back in CMD_PONG for RTT
+            out.flush();
+        } catch (IOException e) {
+            handleDisconnect();
+        } finally {
+            deadline.cancel(false);
+            writeLock.unlock();
         }
     }
 
-    // NEW: Clean shutdown method
-    public void shutdown() {
+    private void closeChannel() {
+        try { channel.close(); } catch (IOException e) {}
+    }
+
+    // Closes without notifying the observer
+    public synchronized void shutdown() {
         isOnline = false;
-        scheduler.shutdownNow();
-        try { if(socket != null) socket.close(); } catch(Exception e) {}
+        closed = true;
+        if (heartbeat != null) heartbeat.cancel(false);
+        closeChannel();
     }
 
     private void listen() {
@@ -94,11 +153,16 @@ public class DeviceConnection {
                 byte type = in.readByte();
                 lastSeen = System.currentTimeMillis();
                 switch (type) {
-                    case CMD_HEARTBEAT: break;
+                    case CMD_HEARTBEAT:
+                        replyPong(in.readLong());
+                        break;
+                    case CMD_PONG:
+                        tuner.recordRtt(System.nanoTime() - in.readLong());
+                        break;
                     case CMD_ACK: break;
                     case CMD_MSG:
                         String text = in.readUTF();
-                        observer.onMessage(remoteIp, text);
+                        observer.onMessage(remoteId, text);
                         break;
                     case CMD_FILE:
                         receiveFile();
@@ -110,75 +174,99 @@ public class DeviceConnection {
         }
     }
 
+    // Skipped while we are mid-transfer: queued behind the file it would measure the transfer, not the RTT
+    private void replyPong(long sentAt) throws IOException {
+        if (!writeLock.tryLock()) return;
+        try {
+            out.writeByte(CMD_PONG);
+            out.writeLong(sentAt);
+            out.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void logTuning() {
+        System.out.println("[JConnect] Tuned " + remoteId + ": " + tuner.describe());
+    }
+
     private void receiveFile() throws IOException {
         String fileName = in.readUTF();
         long fileSize = in.readLong();
         
-        File downloadDir = new File(System.getProperty("user.home"), "Downloads");
         if (!downloadDir.exists()) downloadDir.mkdirs();
         
         File finalFile = new File(downloadDir, "JC_" + System.currentTimeMillis() + "_" + fileName);
 
-        observer.onMessage(remoteIp, "Incoming File: " + fileName);
+        observer.onMessage(remoteId, "Incoming File: " + fileName);
 
         try (FileOutputStream fos = new FileOutputStream(finalFile)) {
-            byte[] buffer = new byte[8192]; 
+            byte[] buffer = new byte[tuner.receiveChunkSize()]; 
             long totalRead = 0;
             int bytesRead;
             long lastAckTime = 0;
+            tuner.startReceiving();
 
             while (totalRead < fileSize) {
+                if (buffer.length != tuner.receiveChunkSize()) buffer = new byte[tuner.receiveChunkSize()];
                 int remaining = (int) Math.min(buffer.length, fileSize - totalRead);
                 bytesRead = in.read(buffer, 0, remaining);
                 if (bytesRead == -1) throw new IOException("Premature End");
                 fos.write(buffer, 0, bytesRead);
                 totalRead += bytesRead;
+                if (tuner.recordReceived(bytesRead)) logTuning();
 
                 if (System.currentTimeMillis() - lastAckTime > 1000) {
-                    synchronized (writeLock) { out.writeByte(CMD_ACK); out.flush(); }
+                    writeLock.lock();
+                    try { out.writeByte(CMD_ACK); out.flush(); } finally { writeLock.unlock(); }
                     lastAckTime = System.currentTimeMillis();
                     int percent = (int) ((totalRead * 100) / fileSize);
-                    observer.onFileProgress(remoteIp, fileName, percent);
+                    observer.onFileProgress(remoteId, fileName, percent);
                 }
             }
             fos.flush(); 
         }
-        observer.onMessage(remoteIp, "File Saved: " + finalFile.getAbsolutePath());
-        observer.onFileProgress(remoteIp, fileName, 100);
+        observer.onMessage(remoteId, "File Saved: " + finalFile.getAbsolutePath());
+        observer.onFileProgress(remoteId, fileName, 100);
     }
 
     public void sendFile(File file) {
         if (!isOnline) return;
         new Thread(() -> {
-            synchronized (writeLock) {
-                try (FileInputStream fis = new FileInputStream(file)) {
-                    out.writeByte(CMD_FILE);
-                    out.writeUTF(file.getName());
-                    out.writeLong(file.length());
+            writeLock.lock();
+            try (FileInputStream fis = new FileInputStream(file)) {
+                out.writeByte(CMD_FILE);
+                out.writeUTF(file.getName());
+                out.writeLong(file.length());
+                
+                byte[] buffer = new byte[tuner.chunkSize()];
+                int bytesRead;
+                long totalSent = 0;
+                long fileSize = file.length();
+                long lastUiUpdate = 0;
+                tuner.startSending();
+
+                while ((bytesRead = fis.read(buffer)) != -1) {
+                    out.write(buffer, 0, bytesRead);
+                    totalSent += bytesRead;
+                    // Chunk size follows the measured bandwidth-delay product mid-transfer
+                    if (tuner.recordSent(bytesRead)) logTuning();
+                    if (buffer.length != tuner.chunkSize()) buffer = new byte[tuner.chunkSize()];
                     
-                    byte[] buffer = new byte[8192];
-                    int bytesRead;
-                    long totalSent = 0;
-                    long fileSize = file.length();
-                    long lastUiUpdate = 0;
-
-                    while ((bytesRead = fis.read(buffer)) != -1) {
-                        out.write(buffer, 0, bytesRead);
-                        totalSent += bytesRead;
-                        
-                        if (System.currentTimeMillis() - lastUiUpdate > 500) {
-                            int percent = (int) ((totalSent * 100) / fileSize);
-                            observer.onFileProgress(remoteIp, file.getName(), percent);
-                            lastUiUpdate = System.currentTimeMillis();
-                        }
+                    if (System.currentTimeMillis() - lastUiUpdate > 500) {
+                        int percent = (int) ((totalSent * 100) / fileSize);
+                        observer.onFileProgress(remoteId, file.getName(), percent);
+                        lastUiUpdate = System.currentTimeMillis();
                     }
-                    out.flush();
-                    observer.onMessage(remoteIp, "Sent File: " + file.getName());
-                    observer.onFileProgress(remoteIp, file.getName(), 100);
-
-                } catch (IOException e) {
-                    handleDisconnect();
                 }
+                out.flush();
+                observer.onMessage(remoteId, "Sent File: " + file.getName());
+                observer.onFileProgress(remoteId, file.getName(), 100);
+
+            } catch (IOException e) {
+                handleDisconnect();
+            } finally {
+                writeLock.unlock();
             }
         }).start();
     }
@@ -186,21 +274,27 @@ public class DeviceConnection {
     public void sendText(String msg) {
         if (!isOnline) return;
         new Thread(() -> {
-            synchronized (writeLock) {
-                try {
-                    out.writeByte(CMD_MSG);
-                    out.writeUTF(msg);
-                    out.flush();
-                } catch (IOException e) { handleDisconnect(); }
+            writeLock.lock();
+            try {
+                out.writeByte(CMD_MSG);
+                out.writeUTF(msg);
+                out.flush();
+            } catch (IOException e) {
+                handleDisconnect();
+            } finally {
+                writeLock.unlock();
             }
         }).start();
     }
 
     private void handleDisconnect() {
-        if (isOnline) {
+        synchronized (this) {
+            if (!isOnline) return;
             isOnline = false;
-            observer.onStatusChange(remoteIp, false);
-            try { if (socket != null) socket.close(); } catch (IOException e) {}
+            closed = true;
+            if (heartbeat != null) heartbeat.cancel(false);
+            closeChannel();
         }
+        observer.onStatusChange(remoteId, false);
     }
 }
\ No newline at end of file
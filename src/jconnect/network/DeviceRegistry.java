@@ -3,17 +3,57 @@ package jconnect.network;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+// Peers are keyed by node id, so several instances behind one IP stay distinct.
+// One registry per NetworkManager, so simulated peers sharing a JVM keep separate views.
 public class DeviceRegistry {
-    private static final Map<String, Long> activeDevices = new ConcurrentHashMap<>();
+    private final Map<String, Peer> activeDevices = new ConcurrentHashMap<>();
+    // Outlives expiry, so old chats and search hits keep a readable label while a peer is away
+    private final Map<String, String> lastKnownNames = new ConcurrentHashMap<>();
 
-    public static void updateDevice(String ip) {
-        activeDevices.put(ip, System.currentTimeMillis());
+    private static class Peer {
+        final String user;
+        final String ip;
+        final int port;
+        // Unix socket path, only set when the peer shares our filesystem, i.e. runs on this host
+        final String localPath;
+        final long lastSeen = System.currentTimeMillis();
+
+        Peer(String user, String ip, int port, String localPath) {
+            this.user = user;
+            this.ip = ip;
+            this.port = port;
+            this.localPath = localPath;
+        }
+    }
+
+    public void updateDevice(String nodeId, String user, String ip, int port, String localPath) {
+        activeDevices.put(nodeId, new Peer(user, ip, port, localPath));
+        lastKnownNames.put(nodeId, user + " @ " + ip + (port != NetworkManager.DEFAULT_PORT ? ":" + port : ""));
+    }
+
+    public String getAddress(String nodeId) {
+        Peer p = activeDevices.get(nodeId);
+        return p == null ? null : p.ip;
+    }
+
+    public int getPort(String nodeId) {
+        Peer p = activeDevices.get(nodeId);
+        return p == null ? -1 : p.port;
+    }
+
+    public String getLocalPath(String nodeId) {
+        Peer p = activeDevices.get(nodeId);
+        return p == null ? null : p.localPath;
+    }
+
+    public String getDisplayName(String nodeId) {
+        return lastKnownNames.getOrDefault(nodeId, nodeId);
     }
 
-    public static List<String> getOnlineDevices() {
+    public List<String> getOnlineDevices() {
         long now = System.currentTimeMillis();
        
-        activeDevices.entrySet().removeIf(entry -> (now - entry.getValue() > 8000));
+        activeDevices.entrySet().removeIf(entry -> (now - entry.getValue().lastSeen > 8000));
         return new ArrayList<>(activeDevices.keySet());
     }
-}
\ No newline at end of file
+}
@@ -1,16 +1,34 @@
 package jconnect.network;
 
 import java.net.*;
+import java.nio.file.*;
 
 public class DiscoveryService {
-    private static final int DISCOVERY_PORT = 8888;
+    public static final int DEFAULT_PORT = 8888;
     private static final String PROTOCOL_PREFIX = "JCONNECT_v1|";
     private DatagramSocket socket;
-    private boolean running = true;
+    private volatile boolean running = true;
+    private final String nodeId;
+    private final int tcpPort;
+    private final String localSocketPath;
+    private final DeviceRegistry registry;
+    private final NetworkConfig config;
+
+    public DiscoveryService(String nodeId, int tcpPort, String localSocketPath, DeviceRegistry registry, NetworkConfig config) {
+        this.nodeId = nodeId;
+        this.tcpPort = tcpPort;
+        this.localSocketPath = localSocketPath;
+        this.registry = registry;
+        this.config = config;
+    }
 
     public void start() {
         try {
-            socket = new DatagramSocket(DISCOVERY_PORT);
+            // Reuse lets every instance on this host bind the port and hear the broadcasts. Always the
+            // wildcard, whatever the TCP bind address: a unicast-bound socket never sees broadcasts.
+            socket = new DatagramSocket(null);
+            socket.setReuseAddress(true);
+            socket.bind(new InetSocketAddress(config.getDiscoveryPort()));
             socket.setBroadcast(true);
             new Thread(this::broadcastPresence).start();
             new Thread(this::listenForPeers).start();
@@ -22,13 +40,22 @@ public class DiscoveryService {
     private void broadcastPresence() {
         try {
             InetAddress broadcastAddr = InetAddress.getByName("255.255.255.255");
-            byte[] buffer = (PROTOCOL_PREFIX + System.getProperty("user.name")).getBytes();
+            // user|socketPath|nodeId|tcpPort
+            String announcement = PROTOCOL_PREFIX + System.getProperty("user.name")
+                    + "|" + (localSocketPath != null ? localSocketPath : "")
+                    + "|" + nodeId + "|" + tcpPort;
+            byte[] buffer = announcement.getBytes();
             while (running) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length, broadcastAddr, DISCOVERY_PORT);
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length, broadcastAddr, config.getDiscoveryPort());
                 socket.send(packet);
                 Thread.sleep(4000); 
             }
-        } catch (Exception e) { e.printStackTrace(); }
+        } catch (Exception e) { if (running) e.printStackTrace(); }
+    }
+
+    public void stop() {
+        running = false;
+        if (socket != null) socket.close();
     }
 
     private void listenForPeers() {
@@ -40,10 +67,18 @@ public class DiscoveryService {
                 String msg = new String(packet.getData(), 0, packet.getLength());
                 String senderIp = packet.getAddress().getHostAddress();
 
-                if (msg.startsWith(PROTOCOL_PREFIX) && !senderIp.equals(InetAddress.getLocalHost().getHostAddress())) {
-                    DeviceRegistry.updateDevice(senderIp);
-                }
+                if (!msg.startsWith(PROTOCOL_PREFIX)) continue;
+                String[] parts = msg.substring(PROTOCOL_PREFIX.length()).split("\\|");
+                // Announcements without a node id come from builds that can't do the hello handshake
+                if (parts.length < 4 || parts[2].equals(nodeId)) continue;
+                registry.updateDevice(parts[2], parts[0], senderIp, Integer.parseInt(parts[3]), sameHostPath(parts[1]));
             } catch (Exception e) { }
         }
     }
+
+    // A peer's socket file is only visible to us if we share its filesystem, i.e. its host
+    private String sameHostPath(String path) {
+        if (path.isEmpty() || !Files.exists(Paths.get(path))) return null;
+        return path;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package jconnect.network;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+
+// Ports, bind addresses and directories for one NetworkManager. The defaults match a normal
+// desktop install; the soak harness uses port 0 and loopback to run many per JVM.
+public class NetworkConfig {
+    private int tcpPort = NetworkManager.DEFAULT_PORT;
+    private int discoveryPort = DiscoveryService.DEFAULT_PORT;
+    private String bindAddress = null;
+    private boolean discoveryEnabled = true;
+    private boolean localSocketsEnabled = true;
+    // Per user: tmpdir is shared, and a directory another user created first would be unwritable
+    private String socketDir = Paths.get(System.getProperty("java.io.tmpdir"), "jconnect-" + System.getProperty("user.name")).toString();
+    private File downloadDir = new File(System.getProperty("user.home"), "Downloads");
+
+    // -Djconnect.port, .discoveryPort, .discovery, .bindAddress, .socketDir, .downloadDir override the defaults
+    public static NetworkConfig fromSystemProperties() {
+        NetworkConfig c = new NetworkConfig();
+        c.tcpPort = Integer.getInteger("jconnect.port", c.tcpPort);
+        c.discoveryPort = Integer.getInteger("jconnect.discoveryPort", c.discoveryPort);
+        c.discoveryEnabled = Boolean.parseBoolean(System.getProperty("jconnect.discovery", "true"));
+        c.bindAddress = System.getProperty("jconnect.bindAddress", c.bindAddress);
+        c.socketDir = System.getProperty("jconnect.socketDir", c.socketDir);
+        String downloads = System.getProperty("jconnect.downloadDir");
+        if (downloads != null) c.downloadDir = new File(downloads);
+        return c;
+    }
+
+    public int getTcpPort() { return tcpPort; }
+    public int getDiscoveryPort() { return discoveryPort; }
+    public String getBindAddress() { return bindAddress; }
+    public boolean isDiscoveryEnabled() { return discoveryEnabled; }
+    public boolean isLocalSocketsEnabled() { return localSocketsEnabled; }
+    public String getSocketDir() { return socketDir; }
+    public File getDownloadDir() { return downloadDir; }
+
+    // Port 0 picks a free port; NetworkManager.getPort() reports the bound one
+    public NetworkConfig setTcpPort(int tcpPort) { this.tcpPort = tcpPort; return this; }
+    public NetworkConfig setDiscoveryPort(int discoveryPort) { this.discoveryPort = discoveryPort; return this; }
+    // Restricts the TCP server only. Discovery always binds the wildcard: on Linux a UDP socket
+    // bound to a unicast address never receives 255.255.255.255 broadcasts.
+    public NetworkConfig setBindAddress(String bindAddress) { this.bindAddress = bindAddress; return this; }
+    public NetworkConfig setDiscoveryEnabled(boolean enabled) { this.discoveryEnabled = enabled; return this; }
+    public NetworkConfig setLocalSocketsEnabled(boolean enabled) { this.localSocketsEnabled = enabled; return this; }
+    public NetworkConfig setSocketDir(String socketDir) { this.socketDir = socketDir; return this; }
+    public NetworkConfig setDownloadDir(File downloadDir) { this.downloadDir = downloadDir; return this; }
+
+    InetSocketAddress tcpAddress() {
+        return bindAddress == null ? new InetSocketAddress(tcpPort) : new InetSocketAddress(bindAddress, tcpPort);
+    }
+}
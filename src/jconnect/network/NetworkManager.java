@@ -2,90 +2,293 @@ package jconnect.network;
 
 import java.net.*;
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.prefs.BackingStoreException;
+import java.util.prefs.Preferences;
 
 public class NetworkManager implements ConnectionObserver {
+    public static final int DEFAULT_PORT = 5000;
+
+    // One live connection per peer node id
     private final Map<String, DeviceConnection> activeConnections = new ConcurrentHashMap<>();
+    // Peers we are currently dialing, so repeated selects don't open parallel sockets
+    private final Set<String> dialing = ConcurrentHashMap.newKeySet();
     private final ConnectionObserver uiObserver;
-    private final DiscoveryService discoveryService;
-    private String myIp;
+    private final NetworkConfig config;
+    private final DeviceRegistry registry = new DeviceRegistry();
+    private DiscoveryService discoveryService;
+    // Both set by start(): loading the id touches Preferences, which is too slow for the EDT
+    private volatile String nodeId;
+    private Path localSocketPath;
+    private ServerSocketChannel tcpServer;
+    private ServerSocketChannel localServer;
+    // Derived in start(): PBKDF2 takes hundreds of ms and must not eat into handshake deadlines
+    private volatile byte[] psk;
+
+    // Shared by every connection instead of a scheduler thread each
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "heartbeats");
+        t.setDaemon(true);
+        return t;
+    });
+    // Handshake and heartbeat write deadlines. Separate from heartbeats, which can block on a
+    // socket write; these tasks only close channels, so they always run on time.
+    private final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "deadlines");
+        t.setDaemon(true);
+        return t;
+    });
 
     public NetworkManager(ConnectionObserver uiObserver) {
+        this(uiObserver, NetworkConfig.fromSystemProperties());
+    }
+
+    public NetworkManager(ConnectionObserver uiObserver, NetworkConfig config) {
         this.uiObserver = uiObserver;
-        this.discoveryService = new DiscoveryService();
+        this.config = config;
+    }
+
+    // Chat history and session tickets are keyed by node id, so it has to survive restarts.
+    // Stored per TCP port and socket dir, so differently configured instances on one host stay
+    // distinct; port 0 (the soak harness) always gets a fresh id.
+    private static String loadNodeId(NetworkConfig config) {
+        if (config.getTcpPort() == 0) return UUID.randomUUID().toString();
+        String key = "nodeId-" + config.getTcpPort() + "-" + Integer.toHexString(config.getSocketDir().hashCode());
+        try {
+            Preferences prefs = Preferences.userNodeForPackage(NetworkManager.class);
+            String id = prefs.get(key, null);
+            if (id == null) {
+                id = UUID.randomUUID().toString();
+                prefs.put(key, id);
+                prefs.flush();
+            }
+            return id;
+        } catch (BackingStoreException | SecurityException e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    // Null until start()
+    public String getNodeId() { return nodeId; }
+    public DeviceRegistry getRegistry() { return registry; }
+    public int getConnectionCount() { return activeConnections.size(); }
+
+    // The bound TCP port, which differs from the configured one when that was 0
+    public int getPort() { return tcpServer != null ? tcpServer.socket().getLocalPort() : config.getTcpPort(); }
+
+    public String getLocalSocketPath() { return localServer != null ? localSocketPath.toString() : null; }
+
+    // Loads the node id, derives the key, binds sockets and starts discovery, so call it off the EDT
+    // Throws when the TCP port can't be bound: announcing it anyway would send peers to
+    // whichever instance does own it.
+    public void start() throws IOException {
+        nodeId = loadNodeId(config);
+        localSocketPath = config.isLocalSocketsEnabled() ? Paths.get(config.getSocketDir(), nodeId + ".sock") : null;
+        psk = SecureChannel.configuredKey();
+        tcpServer = ServerSocketChannel.open();
         try {
-            this.myIp = InetAddress.getLocalHost().getHostAddress();
-        } catch (Exception e) { this.myIp = "127.0.0.1"; }
+            tcpServer.bind(config.tcpAddress(), 256);
+        } catch (IOException e) {
+            tcpServer.close();
+            tcpServer = null;
+            throw new IOException("Cannot bind TCP port " + config.getTcpPort() + ": " + e.getMessage(), e);
+        }
+        new Thread(() -> acceptLoop(tcpServer), "accept-tcp").start();
+
+        // Same-host peers connect here instead of the TCP port
+        if (localSocketPath != null) {
+            try {
+                createPrivateDirectory(localSocketPath.getParent());
+                Files.deleteIfExists(localSocketPath);
+                localServer = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                localServer.bind(UnixDomainSocketAddress.of(localSocketPath), 256);
+                localSocketPath.toFile().deleteOnExit();
+                new Thread(() -> acceptLoop(localServer), "accept-local").start();
+            } catch (IOException | UnsupportedOperationException e) {
+                // No Unix socket support here; peers simply keep using TCP
+                System.err.println("Local socket server unavailable: " + e.getMessage());
+                localServer = null;
+            }
+        }
+
+        if (config.isDiscoveryEnabled()) {
+            discoveryService = new DiscoveryService(nodeId, getPort(), getLocalSocketPath(), registry, config);
+            discoveryService.start();
+        }
     }
 
-    public void start() {
-        discoveryService.start();
-        new Thread(this::startServer).start();
+    // Owner-only where POSIX permissions exist, so other users can't connect or plant socket files
+    private static void createPrivateDirectory(Path dir) throws IOException {
+        if (Files.isDirectory(dir)) return;
+        if (dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } else {
+            Files.createDirectories(dir);
+        }
+    }
+
+    public void stop() {
+        if (discoveryService != null) discoveryService.stop();
+        try { if (tcpServer != null) tcpServer.close(); } catch (IOException e) {}
+        try { if (localServer != null) localServer.close(); } catch (IOException e) {}
+        if (localSocketPath != null) localSocketPath.toFile().delete();
+        for (String peerId : new ArrayList<>(activeConnections.keySet())) disconnectFrom(peerId);
+        heartbeats.shutdownNow();
+        deadlines.shutdownNow();
     }
 
-    private void startServer() {
-        try (ServerSocket ss = new ServerSocket(5000)) {
+    private void acceptLoop(ServerSocketChannel ss) {
+        try {
             while (true) {
-                Socket s = ss.accept();
-                String partnerIp = s.getInetAddress().getHostAddress();
-                
-                if (!activeConnections.containsKey(partnerIp)) {
-                    activeConnections.put(partnerIp, new DeviceConnection(s, this));
-                }
+                SocketChannel s = ss.accept();
+                new Thread(() -> accept(s)).start();
             }
-        } catch (IOException e) { e.printStackTrace(); }
+        } catch (IOException e) {
+            if (ss.isOpen()) e.printStackTrace();
+        }
+    }
+
+    private void accept(SocketChannel s) {
+        DeviceConnection dc = new DeviceConnection(s, null, nodeId, psk, this, heartbeats, deadlines, config.getDownloadDir());
+        try {
+            dc.handshake();
+        } catch (IOException e) {
+            dc.shutdown();
+            return;
+        }
+        register(dc);
     }
 
     // NEW: Explicitly connect when UI selects a device
-    public void connectTo(String targetIp) {
-        if (targetIp == null || targetIp.equals(myIp)) return;
+    public void connectTo(String peerId) {
+        if (peerId == null || peerId.equals(nodeId)) return;
         
         // Don't create if exists and is online
-        if (activeConnections.containsKey(targetIp)) {
-            DeviceConnection conn = activeConnections.get(targetIp);
-            if(conn.isConnected()) {
-                uiObserver.onStatusChange(targetIp, true);
-                return;
-            }
+        DeviceConnection conn = activeConnections.get(peerId);
+        if (conn != null && conn.isConnected()) {
+            uiObserver.onStatusChange(peerId, true);
+            return;
         }
+        if (!dialing.add(peerId)) return;
 
         new Thread(() -> {
-            DeviceConnection dc = new DeviceConnection(targetIp, 5000, this);
-            activeConnections.put(targetIp, dc);
+            try {
+                dial(peerId);
+            } finally {
+                dialing.remove(peerId);
+            }
         }).start();
     }
 
+    private void dial(String peerId) {
+        SocketChannel s = openChannel(peerId);
+        // Silent fail on connect attempt, UI handles "Offline" status
+        if (s == null) return;
+
+        DeviceConnection dc = new DeviceConnection(s, peerId, nodeId, psk, this, heartbeats, deadlines, config.getDownloadDir());
+        try {
+            dc.handshake();
+        } catch (IOException e) {
+            dc.shutdown();
+            return;
+        }
+        register(dc);
+    }
+
+    // Same-host peers over their Unix socket first, TCP otherwise
+    private SocketChannel openChannel(String peerId) {
+        String peerPath = registry.getLocalPath(peerId);
+        if (peerPath != null) {
+            try {
+                return SocketChannel.open(UnixDomainSocketAddress.of(peerPath));
+            } catch (IOException e) { /* fall back to TCP */ }
+        }
+
+        String ip = registry.getAddress(peerId);
+        if (ip == null) return null;
+        SocketChannel s = null;
+        try {
+            s = SocketChannel.open();
+            s.socket().connect(new InetSocketAddress(ip, registry.getPort(peerId)), 2000); // 2s timeout
+            return s;
+        } catch (IOException e) {
+            try { if (s != null) s.close(); } catch (IOException ignored) {}
+            return null;
+        }
+    }
+
+    // Atomically decides which connection survives when both peers dialed each other.
+    // Both sides apply the same rule, so they keep the same socket and close the other.
+    private void register(DeviceConnection dc) {
+        DeviceConnection[] replaced = new DeviceConnection[1];
+        DeviceConnection winner = activeConnections.compute(dc.getRemoteId(), (id, existing) -> {
+            if (existing == null || !existing.isAlive() || prefer(dc, existing)) {
+                replaced[0] = existing;
+                return dc;
+            }
+            return existing;
+        });
+
+        if (winner != dc) {
+            dc.shutdown();
+            return;
+        }
+        if (replaced[0] != null) replaced[0].shutdown();
+        dc.activate();
+    }
+
+    // Prefer the connection dialed by the lower node id; if the same side dialed both, the newer one
+    private boolean prefer(DeviceConnection candidate, DeviceConnection existing) {
+        String candidateDialer = candidate.isInitiator() ? nodeId : candidate.getRemoteId();
+        String existingDialer = existing.isInitiator() ? nodeId : existing.getRemoteId();
+        return candidateDialer.compareTo(existingDialer) <= 0;
+    }
+
     // NEW: Explicitly disconnect
-    public void disconnectFrom(String targetIp) {
-        if (targetIp == null) return;
-        DeviceConnection conn = activeConnections.remove(targetIp);
+    public void disconnectFrom(String peerId) {
+        if (peerId == null) return;
+        DeviceConnection conn = activeConnections.remove(peerId);
         if (conn != null) {
             conn.shutdown();
         }
     }
 
-    public void sendMessageTo(String targetIp, String message) {
-        DeviceConnection conn = activeConnections.get(targetIp);
+    // Socket tuning for the live connection to a peer, or null when not connected
+    public String getDiagnostics(String peerId) {
+        DeviceConnection conn = activeConnections.get(peerId);
+        return conn != null && conn.isConnected() ? conn.getDiagnostics() : null;
+    }
+
+    public void sendMessageTo(String peerId, String message) {
+        DeviceConnection conn = activeConnections.get(peerId);
         if (conn != null) conn.sendText(message);
     }
     
-    public void sendFileTo(String targetIp, File file) {
-        DeviceConnection conn = activeConnections.get(targetIp);
+    public void sendFileTo(String peerId, File file) {
+        DeviceConnection conn = activeConnections.get(peerId);
         if (conn != null) conn.sendFile(file);
     }
 
     @Override
-    public void onMessage(String ip, String msg) { uiObserver.onMessage(ip, msg); }
+    public void onMessage(String peerId, String msg) { uiObserver.onMessage(peerId, msg); }
 
     @Override
-    public void onStatusChange(String ip, boolean online) {
-        if (!online) activeConnections.remove(ip);
-        uiObserver.onStatusChange(ip, online);
+    public void onStatusChange(String peerId, boolean online) {
+        if (!online) {
+            // A connection that lost the tie-break dropping out doesn't make the peer offline
+            DeviceConnection current = activeConnections.get(peerId);
+            if (current != null && current.isAlive()) return;
+            if (current != null) activeConnections.remove(peerId, current);
+        }
+        uiObserver.onStatusChange(peerId, online);
     }
 
     @Override
-    public void onFileProgress(String ip, String file, int percent) {
-        uiObserver.onFileProgress(ip, file, percent);
+    public void onFileProgress(String peerId, String file, int percent) {
+        uiObserver.onFileProgress(peerId, file, percent);
     }
-}
\ No newline at end of file
+}
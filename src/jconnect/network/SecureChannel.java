@@ -0,0 +1,366 @@
+package jconnect.network;
+
+import javax.crypto.*;
+import javax.crypto.spec.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.*;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.*;
+
+// Optional encryption under a pre-shared passphrase (-Djconnect.secret or JCONNECT_SECRET).
+// Full handshake: X25519 key exchange, both transcripts MAC'd with the passphrase key.
+// Resumption: the client presents a session id and both sides derive fresh keys from the
+// cached master secret, skipping the key exchange. Records are AES-128-GCM, up to 64 KB
+// each, sealed into reusable buffers so bulk transfers pay little per byte over plaintext.
+public class SecureChannel {
+    private static final byte HELLO_FULL = 'F';
+    private static final byte HELLO_RESUME = 'R';
+    private static final int NONCE_LEN = 32;
+    private static final int SESSION_ID_LEN = 16;
+    private static final int MAX_RECORD = 64 * 1024;
+    private static final int TAG_BITS = 128;
+    private static final long SESSION_LIFETIME_MS = 60 * 60 * 1000;
+
+    private static final SecureRandom random = new SecureRandom();
+    private static volatile byte[] configuredKey;
+
+    // Client side: peer -> ticket. Server side: session id -> master secret.
+    private static final Map<String, Session> clientSessions = Collections.synchronizedMap(lru(256));
+    private static final Map<String, Session> serverSessions = Collections.synchronizedMap(lru(1024));
+
+    private static class Session {
+        final byte[] id;
+        final byte[] master;
+        final long created = System.currentTimeMillis();
+
+        Session(byte[] id, byte[] master) {
+            this.id = id;
+            this.master = master;
+        }
+
+        boolean expired() { return System.currentTimeMillis() - created > SESSION_LIFETIME_MS; }
+    }
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final boolean resumed;
+
+    private SecureChannel(InputStream in, OutputStream out, boolean resumed) {
+        this.in = in;
+        this.out = out;
+        this.resumed = resumed;
+    }
+
+    public InputStream getInputStream() { return in; }
+    public OutputStream getOutputStream() { return out; }
+    public boolean isResumed() { return resumed; }
+
+    // Null when no passphrase is configured, meaning connections stay plaintext. Synchronized
+    // so concurrent callers share one 100k-round derivation instead of each running their own.
+    public static synchronized byte[] configuredKey() {
+        if (configuredKey == null) {
+            String secret = System.getProperty("jconnect.secret", System.getenv("JCONNECT_SECRET"));
+            if (secret == null || secret.isEmpty()) return null;
+            configuredKey = deriveKey(secret);
+        }
+        return configuredKey;
+    }
+
+    public static byte[] deriveKey(String secret) {
+        try {
+            SecretKeyFactory f = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+            byte[] salt = "jconnect-psk".getBytes(StandardCharsets.UTF_8);
+            return f.generateSecret(new PBEKeySpec(secret.toCharArray(), salt, 100_000, 256)).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static SecureChannel connect(InputStream rawIn, OutputStream rawOut, String peerKey, byte[] psk) throws IOException {
+        DataInputStream din = new DataInputStream(rawIn);
+        DataOutputStream dout = new DataOutputStream(rawOut);
+        try {
+            byte[] cn = randomBytes(NONCE_LEN);
+            Session ticket = clientSessions.get(peerKey);
+            if (ticket != null && !ticket.expired()) {
+                dout.writeByte(HELLO_RESUME);
+                dout.write(ticket.id);
+                dout.write(cn);
+                dout.flush();
+                if (din.readByte() == 1) {
+                    byte[] sn = readBytes(din, NONCE_LEN);
+                    byte[] serverMac = readBytes(din, 32);
+                    if (!MessageDigest.isEqual(serverMac, hmac(ticket.master, "server-resume", ticket.id, cn, sn))) {
+                        throw new IOException("Resumption rejected: bad server proof");
+                    }
+                    dout.write(hmac(ticket.master, "client-resume", ticket.id, cn, sn));
+                    dout.flush();
+                    return open(din, dout, ticket.master, cn, sn, true, true);
+                }
+                clientSessions.remove(peerKey);
+            }
+
+            KeyPair kp = KeyPairGenerator.getInstance("X25519").generateKeyPair();
+            byte[] cpub = kp.getPublic().getEncoded();
+            dout.writeByte(HELLO_FULL);
+            dout.write(cn);
+            dout.writeShort(cpub.length);
+            dout.write(cpub);
+            dout.flush();
+
+            byte[] sn = readBytes(din, NONCE_LEN);
+            byte[] spub = readBytes(din, din.readUnsignedShort());
+            byte[] sessionId = readBytes(din, SESSION_ID_LEN);
+            byte[] serverMac = readBytes(din, 32);
+            if (!MessageDigest.isEqual(serverMac, hmac(psk, "server", cn, sn, cpub, spub, sessionId))) {
+                throw new IOException("Handshake failed: peer does not share our secret");
+            }
+            dout.write(hmac(psk, "client", cn, sn, cpub, spub, sessionId));
+            dout.flush();
+
+            byte[] master = hmac(psk, "master", agree(kp.getPrivate(), spub), cn, sn);
+            clientSessions.put(peerKey, new Session(sessionId, master));
+            return open(din, dout, master, cn, sn, true, false);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Handshake failed", e);
+        }
+    }
+
+    public static SecureChannel accept(InputStream rawIn, OutputStream rawOut, byte[] psk) throws IOException {
+        DataInputStream din = new DataInputStream(rawIn);
+        DataOutputStream dout = new DataOutputStream(rawOut);
+        try {
+            byte hello = din.readByte();
+            if (hello == HELLO_RESUME) {
+                byte[] sessionId = readBytes(din, SESSION_ID_LEN);
+                byte[] cn = readBytes(din, NONCE_LEN);
+                Session session = serverSessions.get(key(sessionId));
+                if (session != null && !session.expired()) {
+                    byte[] sn = randomBytes(NONCE_LEN);
+                    dout.writeByte(1);
+                    dout.write(sn);
+                    dout.write(hmac(session.master, "server-resume", sessionId, cn, sn));
+                    dout.flush();
+                    byte[] clientMac = readBytes(din, 32);
+                    if (!MessageDigest.isEqual(clientMac, hmac(session.master, "client-resume", sessionId, cn, sn))) {
+                        throw new IOException("Resumption rejected: bad client proof");
+                    }
+                    return open(din, dout, session.master, cn, sn, false, true);
+                }
+                // Unknown or expired ticket: the client falls back to a full handshake
+                dout.writeByte(0);
+                dout.flush();
+                hello = din.readByte();
+            }
+            if (hello != HELLO_FULL) throw new IOException("Handshake failed: unexpected hello " + hello);
+
+            byte[] cn = readBytes(din, NONCE_LEN);
+            byte[] cpub = readBytes(din, din.readUnsignedShort());
+            KeyPair kp = KeyPairGenerator.getInstance("X25519").generateKeyPair();
+            byte[] spub = kp.getPublic().getEncoded();
+            byte[] sn = randomBytes(NONCE_LEN);
+            byte[] sessionId = randomBytes(SESSION_ID_LEN);
+
+            dout.write(sn);
+            dout.writeShort(spub.length);
+            dout.write(spub);
+            dout.write(sessionId);
+            dout.write(hmac(psk, "server", cn, sn, cpub, spub, sessionId));
+            dout.flush();
+
+            byte[] clientMac = readBytes(din, 32);
+            if (!MessageDigest.isEqual(clientMac, hmac(psk, "client", cn, sn, cpub, spub, sessionId))) {
+                throw new IOException("Handshake failed: peer does not share our secret");
+            }
+
+            byte[] master = hmac(psk, "master", agree(kp.getPrivate(), cpub), cn, sn);
+            serverSessions.put(key(sessionId), new Session(sessionId, master));
+            return open(din, dout, master, cn, sn, false, false);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Handshake failed", e);
+        }
+    }
+
+    private static SecureChannel open(InputStream rawIn, OutputStream rawOut, byte[] master, byte[] cn, byte[] sn,
+                                      boolean client, boolean resumed) throws GeneralSecurityException {
+        byte[] c2s = hmac(master, "c2s", cn, sn);
+        byte[] s2c = hmac(master, "s2c", cn, sn);
+        byte[] sendKeys = client ? c2s : s2c;
+        byte[] recvKeys = client ? s2c : c2s;
+        return new SecureChannel(
+                new RecordInputStream(rawIn, recvKeys),
+                new RecordOutputStream(rawOut, sendKeys),
+                resumed);
+    }
+
+    private static byte[] agree(PrivateKey mine, byte[] theirEncoded) throws GeneralSecurityException {
+        PublicKey theirs = KeyFactory.getInstance("X25519").generatePublic(new X509EncodedKeySpec(theirEncoded));
+        KeyAgreement ka = KeyAgreement.getInstance("X25519");
+        ka.init(mine);
+        ka.doPhase(theirs, true);
+        return ka.generateSecret();
+    }
+
+    private static byte[] hmac(byte[] key, String label, byte[]... parts) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        mac.update(label.getBytes(StandardCharsets.UTF_8));
+        for (byte[] part : parts) mac.update(part);
+        return mac.doFinal();
+    }
+
+    private static byte[] randomBytes(int len) {
+        byte[] b = new byte[len];
+        random.nextBytes(b);
+        return b;
+    }
+
+    private static byte[] readBytes(DataInputStream din, int len) throws IOException {
+        byte[] b = new byte[len];
+        din.readFully(b);
+        return b;
+    }
+
+    private static String key(byte[] sessionId) {
+        return Base64.getEncoder().encodeToString(sessionId);
+    }
+
+    private static <V> Map<String, V> lru(int max) {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) { return size() > max; }
+        };
+    }
+
+    // 12-byte GCM nonce: 4-byte per-direction salt followed by the record sequence number
+    private static GCMParameterSpec nonce(byte[] salt, long seq) {
+        byte[] iv = new byte[12];
+        System.arraycopy(salt, 0, iv, 0, 4);
+        for (int i = 0; i < 8; i++) iv[4 + i] = (byte) (seq >>> (56 - 8 * i));
+        return new GCMParameterSpec(TAG_BITS, iv);
+    }
+
+    // Frame: [int ciphertext length][ciphertext + tag]. Bytes are buffered until flush() or 64 KB.
+    private static class RecordOutputStream extends OutputStream {
+        private final OutputStream raw;
+        private final SecretKeySpec key;
+        private final byte[] salt;
+        private final Cipher cipher;
+        private final byte[] plain = new byte[MAX_RECORD];
+        private final byte[] sealed = new byte[4 + MAX_RECORD + TAG_BITS / 8];
+        private int count = 0;
+        private long seq = 0;
+
+        RecordOutputStream(OutputStream raw, byte[] keys) throws GeneralSecurityException {
+            this.raw = raw;
+            this.key = new SecretKeySpec(keys, 0, 16, "AES");
+            this.salt = Arrays.copyOfRange(keys, 16, 20);
+            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == plain.length) seal();
+            plain[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == plain.length) seal();
+                int n = Math.min(len, plain.length - count);
+                System.arraycopy(b, off, plain, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) seal();
+            raw.flush();
+        }
+
+        @Override
+        public void close() throws IOException { raw.close(); }
+
+        private void seal() throws IOException {
+            try {
+                cipher.init(Cipher.ENCRYPT_MODE, key, nonce(salt, seq++));
+                int n = cipher.doFinal(plain, 0, count, sealed, 4);
+                sealed[0] = (byte) (n >>> 24);
+                sealed[1] = (byte) (n >>> 16);
+                sealed[2] = (byte) (n >>> 8);
+                sealed[3] = (byte) n;
+                raw.write(sealed, 0, 4 + n);
+                count = 0;
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Encryption failed", e);
+            }
+        }
+    }
+
+    private static class RecordInputStream extends InputStream {
+        private final DataInputStream raw;
+        private final SecretKeySpec key;
+        private final byte[] salt;
+        private final Cipher cipher;
+        private final byte[] sealed = new byte[MAX_RECORD + TAG_BITS / 8];
+        private final byte[] plain = new byte[MAX_RECORD];
+        private int pos = 0;
+        private int limit = 0;
+        private long seq = 0;
+
+        RecordInputStream(InputStream raw, byte[] keys) throws GeneralSecurityException {
+            this.raw = raw instanceof DataInputStream ? (DataInputStream) raw : new DataInputStream(raw);
+            this.key = new SecretKeySpec(keys, 0, 16, "AES");
+            this.salt = Arrays.copyOfRange(keys, 16, 20);
+            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos == limit && !fill()) return -1;
+            return plain[pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (pos == limit && !fill()) return -1;
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(plain, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() { return limit - pos; }
+
+        @Override
+        public void close() throws IOException { raw.close(); }
+
+        private boolean fill() throws IOException {
+            int len;
+            try {
+                len = raw.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            if (len < TAG_BITS / 8 || len > sealed.length) throw new IOException("Bad record length " + len);
+            raw.readFully(sealed, 0, len);
+            try {
+                cipher.init(Cipher.DECRYPT_MODE, key, nonce(salt, seq++));
+                limit = cipher.doFinal(sealed, 0, len, plain, 0);
+                pos = 0;
+                return true;
+            } catch (AEADBadTagException e) {
+                throw new IOException("Record failed authentication", e);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Decryption failed", e);
+            }
+        }
+    }
+}
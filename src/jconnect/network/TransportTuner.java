@@ -0,0 +1,176 @@
+package jconnect.network;
+
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+// Per-connection socket tuning. Turns Nagle off (every frame is flushed deliberately), tracks a
+// smoothed RTT from heartbeat echoes and the throughput of each direction, and sizes socket
+// buffers and file chunks from the bandwidth-delay product while a transfer is running.
+// Buffers are only ever raised: on Linux an explicit SO_SNDBUF/SO_RCVBUF switches off kernel
+// autotuning, so we leave it alone unless it is demonstrably the bottleneck.
+class TransportTuner {
+    static final int MIN_CHUNK = 8 * 1024;
+    static final int MAX_CHUNK = 1024 * 1024;
+    private static final int MAX_BUFFER = 16 * 1024 * 1024;
+    private static final long SAMPLE_NS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final SocketChannel channel;
+    private final boolean tcp;
+    private boolean noDelay = false;
+
+    private volatile double srttMs = -1;
+    private volatile int chunkSize = MIN_CHUNK;
+    private volatile int receiveChunkSize = MIN_CHUNK;
+    // Last sizes read back from the socket; the kernel can change them under us (autotuning,
+    // sysctl limits), so decisions re-read the live value and these only detect changes
+    private volatile int sendBuffer;
+    private volatile int receiveBuffer;
+
+    private final Direction sending = new Direction();
+    private final Direction receiving = new Direction();
+
+    // Throughput of one direction, sampled every 250 ms while bytes are moving
+    private static class Direction {
+        volatile double rate = 0; // bytes/s, smoothed
+        long windowStart = 0;
+        long windowBytes = 0;
+
+        synchronized boolean record(int bytes) {
+            long now = System.nanoTime();
+            if (windowStart == 0) windowStart = now;
+            windowBytes += bytes;
+            long elapsed = now - windowStart;
+            if (elapsed < SAMPLE_NS) return false;
+            double sample = windowBytes * 1e9 / elapsed;
+            rate = rate == 0 ? sample : 0.75 * rate + 0.25 * sample;
+            windowStart = now;
+            windowBytes = 0;
+            return true;
+        }
+
+        // Idle time between transfers must not count against the next one
+        synchronized void restart() {
+            windowStart = 0;
+            windowBytes = 0;
+        }
+    }
+
+    TransportTuner(SocketChannel channel) {
+        this.channel = channel;
+        this.tcp = channel.supportedOptions().contains(StandardSocketOptions.TCP_NODELAY);
+        try {
+            if (tcp) {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                noDelay = true;
+            }
+            sendBuffer = channel.getOption(StandardSocketOptions.SO_SNDBUF);
+            receiveBuffer = channel.getOption(StandardSocketOptions.SO_RCVBUF);
+        } catch (IOException | UnsupportedOperationException e) {
+            // Keep OS defaults; tuning is best effort
+        }
+    }
+
+    int chunkSize() { return chunkSize; }
+    int receiveChunkSize() { return receiveChunkSize; }
+
+    void recordRtt(long nanos) {
+        double sample = nanos / 1e6;
+        // Same smoothing as TCP's SRTT (RFC 6298)
+        srttMs = srttMs < 0 ? sample : 0.875 * srttMs + 0.125 * sample;
+    }
+
+    void startSending() { sending.restart(); }
+    void startReceiving() { receiving.restart(); }
+
+    // Both return true when a setting changed, so the caller can log it
+    boolean recordSent(int bytes) {
+        return sending.record(bytes) && retuneSend();
+    }
+
+    boolean recordReceived(int bytes) {
+        return receiving.record(bytes) && retuneReceive();
+    }
+
+    private synchronized boolean retuneSend() {
+        double bdp = sending.rate * rttSeconds();
+        int oldChunk = chunkSize;
+        int oldBuffer = sendBuffer;
+
+        int live = getBuffer(StandardSocketOptions.SO_SNDBUF, sendBuffer);
+        int target = targetBuffer(bdp, live);
+        if (target > live) live = setBuffer(StandardSocketOptions.SO_SNDBUF, target, live);
+        sendBuffer = live;
+        // A quarter of the BDP per write keeps the pipe full without huge copies, and never
+        // more than half the socket buffer so a write doesn't park waiting for the whole buffer
+        chunkSize = chunkFor(bdp, live);
+        return chunkSize != oldChunk || live != oldBuffer;
+    }
+
+    private synchronized boolean retuneReceive() {
+        double bdp = receiving.rate * rttSeconds();
+        int oldChunk = receiveChunkSize;
+        int oldBuffer = receiveBuffer;
+
+        int live = getBuffer(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+        int target = targetBuffer(bdp, live);
+        if (target > live) live = setBuffer(StandardSocketOptions.SO_RCVBUF, target, live);
+        receiveBuffer = live;
+        receiveChunkSize = chunkFor(bdp, live);
+        return receiveChunkSize != oldChunk || live != oldBuffer;
+    }
+
+    private static int chunkFor(double bdp, int socketBuffer) {
+        return clampPow2((long) (bdp / 4), MIN_CHUNK, Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, socketBuffer / 2)));
+    }
+
+    // Twice the BDP, or double the current buffer when it is what caps throughput
+    private int targetBuffer(double bdp, int current) {
+        long target = (long) (2 * bdp);
+        if (bdp >= 0.75 * current) target = Math.max(target, 2L * current);
+        return clampPow2(target, 64 * 1024, MAX_BUFFER);
+    }
+
+    // Falls back to the last value read once the channel is closed
+    private int getBuffer(SocketOption<Integer> option, int last) {
+        try {
+            return channel.getOption(option);
+        } catch (IOException | UnsupportedOperationException e) {
+            return last;
+        }
+    }
+
+    // Returns what the kernel actually granted, which may be clamped (net.core.wmem_max/rmem_max)
+    private int setBuffer(SocketOption<Integer> option, int size, int current) {
+        try {
+            channel.setOption(option, size);
+            return channel.getOption(option);
+        } catch (IOException | UnsupportedOperationException e) {
+            return current;
+        }
+    }
+
+    private double rttSeconds() {
+        // Before the first echo, assume a LAN-ish 1 ms
+        return (srttMs < 0 ? 1.0 : srttMs) / 1000.0;
+    }
+
+    private static int clampPow2(long value, int min, int max) {
+        if (value <= min) return min;
+        if (value >= max) return max;
+        return (int) Math.min(max, Long.highestOneBit(value - 1) << 1);
+    }
+
+    String describe() {
+        return (tcp ? "tcp" : "unix")
+                + " rtt=" + (srttMs < 0 ? "?" : String.format("%.2fms", srttMs))
+                + " out=" + String.format("%.1fMB/s", sending.rate / 1048576)
+                + " in=" + String.format("%.1fMB/s", receiving.rate / 1048576)
+                + " sndbuf=" + getBuffer(StandardSocketOptions.SO_SNDBUF, sendBuffer) / 1024 + "KB"
+                + " rcvbuf=" + getBuffer(StandardSocketOptions.SO_RCVBUF, receiveBuffer) / 1024 + "KB"
+                + " chunk=" + chunkSize / 1024 + "KB/" + receiveChunkSize / 1024 + "KB"
+                + (tcp ? " nodelay=" + noDelay : "");
+    }
+}
@@ -11,14 +11,17 @@ import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.List;
 
 public class App extends JFrame implements ConnectionObserver {
 
     private NetworkManager networkManager;
-    private String currentChatIp; 
+    private String currentChatId; 
     private final Map<String, List<ChatMessage>> chatHistory = new HashMap<>();
+    private final ChatSearchIndex searchIndex = new ChatSearchIndex();
     private boolean isUpdatingList = false;
 
     private DefaultListModel<String> deviceListModel;
@@ -30,6 +33,7 @@ public class App extends JFrame implements ConnectionObserver {
     private JLabel headerTitle;
     private JLabel headerStatus;
     private JTextField messageField;
+    private JTextField searchField;
     private JProgressBar fileProgressBar;
     private JLabel dotLabel;
 
@@ -39,9 +43,11 @@ public class App extends JFrame implements ConnectionObserver {
     private final Font FONT_MAIN = new Font("Segoe UI", Font.PLAIN, 14);
     private final Font FONT_BOLD = new Font("Segoe UI", Font.BOLD, 15);
 
+    private static long launchNanos;
+    private boolean firstFramePainted = false;
+
     public App() {
         networkManager = new NetworkManager(this);
-        networkManager.start();
 
         setTitle("JConnect");
         setSize(1080, 760);
@@ -61,11 +67,66 @@ public class App extends JFrame implements ConnectionObserver {
         splitPane.setBorder(null);
         mainLayout.add(splitPane, BorderLayout.CENTER);
 
-        startDeviceDiscovery();
-
         setVisible(true);
     }
 
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!firstFramePainted) {
+            firstFramePainted = true;
+            long firstFrameAt = System.currentTimeMillis();
+            long sinceMain = (System.nanoTime() - launchNanos) / 1_000_000;
+            startDeferredInit(firstFrameAt, sinceMain);
+        }
+    }
+
+    // Everything the first frame doesn't need: networking, discovery and class warm-up
+    private void startDeferredInit(long firstFrameAt, long sinceMain) {
+        Thread init = new Thread(() -> {
+            // Reading the JVM start time pulls in java.management, so it waits until after the first frame
+            long sinceJvmStart = firstFrameAt - ManagementFactory.getRuntimeMXBean().getStartTime();
+            System.out.println("[JConnect] First frame painted " + sinceJvmStart + " ms after JVM start (" + sinceMain + " ms after main)");
+
+            long start = System.nanoTime();
+            try {
+                networkManager.start();
+            } catch (IOException e) {
+                System.err.println("[JConnect] Networking unavailable: " + e.getMessage());
+                SwingUtilities.invokeLater(() -> {
+                    headerStatus.setText("Network unavailable");
+                    headerStatus.setToolTipText(e.getMessage());
+                });
+            }
+            SwingUtilities.invokeLater(this::warmUpClasses);
+            SwingUtilities.invokeLater(this::startDeviceDiscovery);
+            System.out.println("[JConnect] Background init finished in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+            // Training run for the AppCDS archive (see the cds-archive target in build.xml)
+            if (Boolean.getBoolean("jconnect.cds.dump")) {
+                try { Thread.sleep(3000); } catch (InterruptedException e) {}
+                System.exit(0);
+            }
+        }, "startup-init");
+        init.setDaemon(true);
+        init.start();
+    }
+
+    // Runs on the EDT after the first frame, since Swing static initialisers aren't thread-safe
+    private void warmUpClasses() {
+        String[] classes = {
+                "javax.swing.JFileChooser",
+                "javax.swing.JPopupMenu",
+                "javax.swing.SwingWorker",
+                "com.formdev.flatlaf.ui.FlatFileChooserUI",
+                "com.formdev.flatlaf.ui.FlatPopupMenuUI",
+                "com.formdev.flatlaf.ui.FlatMenuItemUI"
+        };
+        for (String name : classes) {
+            try { Class.forName(name); } catch (ClassNotFoundException e) {}
+        }
+    }
+
     private JPanel createSidebar() {
         JPanel panel = new JPanel(new BorderLayout());
         panel.setBackground(COL_BG_DARK);
@@ -75,7 +136,29 @@ public class App extends JFrame implements ConnectionObserver {
         title.setFont(new Font("Segoe UI", Font.BOLD, 12));
         title.setForeground(new Color(150, 150, 150));
         title.setBorder(new EmptyBorder(20, 20, 10, 20));
-        panel.add(title, BorderLayout.NORTH);
+
+        searchField = new JTextField();
+        searchField.setFont(FONT_MAIN);
+        searchField.setBackground(new Color(45, 49, 55));
+        searchField.setForeground(Color.WHITE);
+        searchField.setCaretColor(Color.WHITE);
+        searchField.setToolTipText("Search all chats (use term* for prefix matches)");
+        searchField.setBorder(BorderFactory.createCompoundBorder(
+                new LineBorder(new Color(60, 60, 60), 1, true),
+                new EmptyBorder(5, 10, 5, 10)
+        ));
+        searchField.addActionListener(e -> searchHistory());
+
+        JPanel top = new JPanel(new BorderLayout());
+        top.setOpaque(false);
+        top.setBorder(new EmptyBorder(0, 0, 10, 0));
+        top.add(title, BorderLayout.NORTH);
+        JPanel searchWrap = new JPanel(new BorderLayout());
+        searchWrap.setOpaque(false);
+        searchWrap.setBorder(new EmptyBorder(0, 20, 0, 20));
+        searchWrap.add(searchField, BorderLayout.CENTER);
+        top.add(searchWrap, BorderLayout.CENTER);
+        panel.add(top, BorderLayout.NORTH);
 
         deviceListModel = new DefaultListModel<>();
         deviceList = new JList<>(deviceListModel);
@@ -194,54 +277,95 @@ public class App extends JFrame implements ConnectionObserver {
         rightPanel.add(southStack, BorderLayout.SOUTH);
     }
 
-    private void switchChat(String ip) {
-        if (ip == null) return;
-        currentChatIp = ip;
+    private void switchChat(String id) {
+        if (id == null) return;
+        currentChatId = id;
         
         chatCardPanel.removeAll();
         
-        chatHistory.putIfAbsent(ip, new ArrayList<>());
-        for (ChatMessage msg : chatHistory.get(ip)) {
+        chatHistory.putIfAbsent(id, new ArrayList<>());
+        for (ChatMessage msg : chatHistory.get(id)) {
             addBubbleToUI(msg);
         }
         
-        headerTitle.setText("Chat with " + ip);
-        networkManager.connectTo(ip);
+        headerTitle.setText("Chat with " + networkManager.getRegistry().getDisplayName(id));
+        networkManager.connectTo(id);
         
         refreshUI();
     }
 
     private void sendMessage() {
         String text = messageField.getText().trim();
-        if (currentChatIp != null && !text.isEmpty()) {
+        if (currentChatId != null && !text.isEmpty()) {
             messageField.setText(""); 
             
-            networkManager.sendMessageTo(currentChatIp, text);
-            addMessage(currentChatIp, text, true, false);
+            networkManager.sendMessageTo(currentChatId, text);
+            addMessage(currentChatId, text, true, false);
         }
     }
 
     private void sendFile() {
-        if (currentChatIp == null) return;
+        if (currentChatId == null) return;
         JFileChooser fc = new JFileChooser();
         if (fc.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             File f = fc.getSelectedFile();
-            networkManager.sendFileTo(currentChatIp, f);
-            addMessage(currentChatIp, "Sending: " + f.getName(), true, true);
+            networkManager.sendFileTo(currentChatId, f);
+            addMessage(currentChatId, "Sending: " + f.getName(), true, true);
         }
     }
 
-    private void addMessage(String ip, String text, boolean isMe, boolean isFile) {
+    private void addMessage(String id, String text, boolean isMe, boolean isFile) {
         ChatMessage msg = new ChatMessage(text, isMe, isFile);
-        chatHistory.putIfAbsent(ip, new ArrayList<>());
-        chatHistory.get(ip).add(msg);
+        chatHistory.putIfAbsent(id, new ArrayList<>());
+        chatHistory.get(id).add(msg);
+        searchIndex.add(id, msg);
 
-        if (ip.equals(currentChatIp)) {
+        if (id.equals(currentChatId)) {
             addBubbleToUI(msg);
             refreshUI();
         }
     }
 
+    private void searchHistory() {
+        String query = searchField.getText().trim();
+        if (query.isEmpty()) return;
+
+        new SwingWorker<List<ChatSearchIndex.Hit>, Void>() {
+            @Override
+            protected List<ChatSearchIndex.Hit> doInBackground() {
+                return searchIndex.search(query, 20);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    showSearchResults(get());
+                } catch (Exception e) { e.printStackTrace(); }
+            }
+        }.execute();
+    }
+
+    private void showSearchResults(List<ChatSearchIndex.Hit> hits) {
+        JPopupMenu popup = new JPopupMenu();
+        if (hits.isEmpty()) {
+            JMenuItem none = new JMenuItem("No matches");
+            none.setEnabled(false);
+            popup.add(none);
+        }
+        for (ChatSearchIndex.Hit hit : hits) {
+            String text = hit.getMessage().getContent();
+            if (text.length() > 60) text = text.substring(0, 57) + "...";
+            JMenuItem item = new JMenuItem(networkManager.getRegistry().getDisplayName(hit.getPeerId()) + "  " + hit.getMessage().getTimestamp() + "  " + text);
+            item.setFont(FONT_MAIN);
+            item.addActionListener(e -> {
+                if (deviceListModel.contains(hit.getPeerId())) deviceList.setSelectedValue(hit.getPeerId(), true);
+                else switchChat(hit.getPeerId());
+            });
+            popup.add(item);
+        }
+        popup.show(searchField, 0, searchField.getHeight());
+    }
+
     private void addBubbleToUI(ChatMessage msg) {
         JPanel bubbleRow = new JPanel(new FlowLayout(msg.isMe() ? FlowLayout.RIGHT : FlowLayout.LEFT));
         bubbleRow.setOpaque(false);
@@ -279,23 +403,23 @@ public class App extends JFrame implements ConnectionObserver {
     }
 
     @Override
-    public void onMessage(String ip, String msg) {
-        SwingUtilities.invokeLater(() -> addMessage(ip, msg, false, false));
+    public void onMessage(String id, String msg) {
+        SwingUtilities.invokeLater(() -> addMessage(id, msg, false, false));
     }
 
     @Override
-    public void onStatusChange(String ip, boolean online) {
+    public void onStatusChange(String id, boolean online) {
         SwingUtilities.invokeLater(() -> {
-            if (ip.equals(currentChatIp)) {
+            if (id.equals(currentChatId)) {
                 updateConnectionStatus(online);
             }
         });
     }
 
     @Override
-    public void onFileProgress(String ip, String file, int percent) {
+    public void onFileProgress(String id, String file, int percent) {
         SwingUtilities.invokeLater(() -> {
-            if (ip.equals(currentChatIp)) {
+            if (id.equals(currentChatId)) {
                 fileProgressBar.setVisible(true);
                 fileProgressBar.setValue(percent);
                 if (percent >= 100) {
@@ -321,8 +445,11 @@ public class App extends JFrame implements ConnectionObserver {
 
     private void startDeviceDiscovery() {
         new javax.swing.Timer(2000, e -> {
-            List<String> online = DeviceRegistry.getOnlineDevices();
-            Collections.sort(online);
+            // Hovering the status shows the live socket tuning (RTT, buffers, chunk size)
+            if (currentChatId != null) headerStatus.setToolTipText(networkManager.getDiagnostics(currentChatId));
+
+            List<String> online = networkManager.getRegistry().getOnlineDevices();
+            online.sort(Comparator.comparing(networkManager.getRegistry()::getDisplayName));
             
             boolean changed = false;
             if (online.size() != deviceListModel.size()) changed = true;
@@ -395,7 +522,7 @@ public class App extends JFrame implements ConnectionObserver {
             JLabel icon = new JLabel("🖥️"); 
             icon.setForeground(Color.LIGHT_GRAY);
             
-            JLabel text = new JLabel(value.toString());
+            JLabel text = new JLabel(networkManager.getRegistry().getDisplayName(value.toString()));
             text.setFont(FONT_MAIN);
             text.setForeground(isSelected ? Color.WHITE : Color.LIGHT_GRAY);
 
@@ -406,6 +533,7 @@ public class App extends JFrame implements ConnectionObserver {
     }
 
     public static void main(String[] args) {
+        launchNanos = System.nanoTime();
         try { FlatDarkLaf.setup(); } catch(Exception e){}
         SwingUtilities.invokeLater(App::new);
     }
@@ -0,0 +1,144 @@
+package jconnect.ui;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Incremental inverted index over every chat. Message ids are assigned in arrival
+// order, so a higher id is always a more recent message.
+public class ChatSearchIndex {
+
+    public static class Hit {
+        private final String peerId;
+        private final ChatMessage message;
+
+        Hit(String peerId, ChatMessage message) {
+            this.peerId = peerId;
+            this.message = message;
+        }
+
+        public String getPeerId() { return peerId; }
+        public ChatMessage getMessage() { return message; }
+    }
+
+    private static class Postings {
+        private int[] ids = new int[4];
+        private int size = 0;
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        void copyInto(BitSet bits) {
+            for (int i = 0; i < size; i++) bits.set(ids[i]);
+        }
+    }
+
+    private final List<String> docPeers = new ArrayList<>();
+    private final List<ChatMessage> docs = new ArrayList<>();
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "chat-indexer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Called from the EDT; tokenizing and indexing happen on the indexer thread
+    public void add(String peerId, ChatMessage msg) {
+        indexer.execute(() -> index(peerId, msg));
+    }
+
+    private void index(String peerId, ChatMessage msg) {
+        Set<String> tokens = new LinkedHashSet<>(tokenize(msg.getContent()));
+        lock.writeLock().lock();
+        try {
+            int id = docs.size();
+            docs.add(msg);
+            docPeers.add(peerId);
+            for (String token : tokens) {
+                terms.computeIfAbsent(token, k -> new Postings()).add(id);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Every word in the query must match. "term" matches whole tokens, "term*" matches
+    // any token starting with "term". Results come back newest first.
+    public List<Hit> search(String query, int limit) {
+        List<String> exact = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String word : query.trim().split("\\s+")) {
+            boolean isPrefix = word.endsWith("*");
+            List<String> tokens = tokenize(word);
+            for (int i = 0; i < tokens.size(); i++) {
+                if (isPrefix && i == tokens.size() - 1) prefixes.add(tokens.get(i));
+                else exact.add(tokens.get(i));
+            }
+        }
+        if (exact.isEmpty() && prefixes.isEmpty()) return Collections.emptyList();
+
+        lock.readLock().lock();
+        try {
+            BitSet matches = null;
+            for (String term : exact) {
+                Postings p = terms.get(term);
+                if (p == null) return Collections.emptyList();
+                BitSet bits = new BitSet(docs.size());
+                p.copyInto(bits);
+                matches = intersect(matches, bits);
+            }
+            for (String prefix : prefixes) {
+                BitSet bits = new BitSet(docs.size());
+                for (Postings p : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                    p.copyInto(bits);
+                }
+                matches = intersect(matches, bits);
+            }
+
+            List<Hit> hits = new ArrayList<>();
+            for (int id = matches.previousSetBit(docs.size() - 1); id >= 0 && hits.size() < limit;
+                 id = matches.previousSetBit(id - 1)) {
+                hits.add(new Hit(docPeers.get(id), docs.get(id)));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static BitSet intersect(BitSet acc, BitSet bits) {
+        if (acc == null) return bits;
+        acc.and(bits);
+        return acc;
+    }
+
+    // Splits on anything that isn't a letter or digit, so file paths index by their segments
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}